@@ -1,5 +1,14 @@
 package com.example.designpatterns.creational.builder;
 
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
 import java.util.logging.Logger;
 
 class Computer {
@@ -17,6 +26,26 @@ class Computer {
         this.powerSupply = builder.powerSupply;
     }
 
+    public String getCPU() {
+        return CPU;
+    }
+
+    public String getRAM() {
+        return RAM;
+    }
+
+    public String getStorage() {
+        return storage;
+    }
+
+    public String getGPU() {
+        return GPU;
+    }
+
+    public String getPowerSupply() {
+        return powerSupply;
+    }
+
     @Override
     public String toString() {
         return "Computer{" +
@@ -61,6 +90,286 @@ class Computer {
     }
 }
 
+// Canonical cache key: normalized component names with the hash computed once
+final class ConfigurationKey {
+    private final String[] components;
+    private final int hash;
+
+    private ConfigurationKey(String[] components) {
+        this.components = components;
+        this.hash = Arrays.hashCode(components);
+    }
+
+    static ConfigurationKey of(Computer computer) {
+        return new ConfigurationKey(new String[] {
+                normalize(computer.getCPU()),
+                normalize(computer.getRAM()),
+                normalize(computer.getStorage()),
+                normalize(computer.getGPU()),
+                normalize(computer.getPowerSupply())
+        });
+    }
+
+    static String normalize(String component) {
+        return component == null ? "" : component.trim().toLowerCase(Locale.ROOT);
+    }
+
+    String[] components() {
+        return components;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof ConfigurationKey)) {
+            return false;
+        }
+        ConfigurationKey other = (ConfigurationKey) o;
+        return hash == other.hash && Arrays.equals(components, other.components);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+}
+
+// Component prices in cents, notifying listeners when a price changes
+class ComponentCatalog {
+    private final Map<String, Long> pricesInCents = new ConcurrentHashMap<>();
+    private final Set<Consumer<String>> listeners = ConcurrentHashMap.newKeySet();
+
+    public void setPrice(String component, long priceInCents) {
+        if (priceInCents < 0) {
+            throw new IllegalArgumentException("Price must not be negative: " + component);
+        }
+        String key = ConfigurationKey.normalize(component);
+        Long previous = pricesInCents.put(key, priceInCents);
+        if (previous != null && previous != priceInCents) {
+            for (Consumer<String> listener : listeners) {
+                listener.accept(key);
+            }
+        }
+    }
+
+    public long getPrice(String normalizedComponent) {
+        if (normalizedComponent.isEmpty()) {
+            return 0;
+        }
+        Long price = pricesInCents.get(normalizedComponent);
+        if (price == null) {
+            throw new IllegalArgumentException("Unknown component: " + normalizedComponent);
+        }
+        return price;
+    }
+
+    public void addPriceChangeListener(Consumer<String> listener) {
+        listeners.add(listener);
+    }
+
+    public void removePriceChangeListener(Consumer<String> listener) {
+        listeners.remove(listener);
+    }
+}
+
+final class Quote {
+    private final String configuration;
+    private final long totalInCents;
+
+    Quote(String configuration, long totalInCents) {
+        this.configuration = configuration;
+        this.totalInCents = totalInCents;
+    }
+
+    public long getTotalInCents() {
+        return totalInCents;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "Quote{%s, total=$%d.%02d}",
+                configuration, totalInCents / 100, totalInCents % 100);
+    }
+}
+
+// Bounded cache of quotes split into independently locked LRU segments, with a
+// component -> keys index so a price change only touches the affected quotes.
+// A key is indexed under its segment lock, but invalidation takes a component's whole
+// key set without it, so quote() re-checks the generation once the key is indexed.
+class QuoteService implements AutoCloseable {
+    private static final int SEGMENTS = 16;
+
+    private final ComponentCatalog catalog;
+    private final Consumer<String> priceChangeListener = this::invalidateComponent;
+    private final Segment[] segments = new Segment[SEGMENTS];
+    private final Map<String, Set<ConfigurationKey>> keysByComponent = new ConcurrentHashMap<>();
+    private final AtomicLong generation = new AtomicLong();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    private final class Segment extends LinkedHashMap<ConfigurationKey, Quote> {
+        private static final long serialVersionUID = 1L;
+        private final int maxEntries;
+
+        Segment(int maxEntries) {
+            super(16, 0.75f, true);
+            this.maxEntries = maxEntries;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<ConfigurationKey, Quote> eldest) {
+            if (size() > maxEntries) {
+                evictions.increment();
+                unindex(eldest.getKey());
+                return true;
+            }
+            return false;
+        }
+    }
+
+    private QuoteService(ComponentCatalog catalog, int maxEntries) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("Cache size must be positive.");
+        }
+        this.catalog = catalog;
+        int perSegment = Math.max(1, (maxEntries + SEGMENTS - 1) / SEGMENTS);
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(perSegment);
+        }
+    }
+
+    // Creates a service that is invalidated by the catalog until it is closed
+    public static QuoteService create(ComponentCatalog catalog, int maxEntries) {
+        QuoteService service = new QuoteService(catalog, maxEntries);
+        catalog.addPriceChangeListener(service.priceChangeListener);
+        return service;
+    }
+
+    @Override
+    public void close() {
+        catalog.removePriceChangeListener(priceChangeListener);
+    }
+
+    private Segment segmentFor(ConfigurationKey key) {
+        int h = key.hashCode();
+        return segments[(h ^ (h >>> 16)) & (SEGMENTS - 1)];
+    }
+
+    public Quote quote(Computer computer) {
+        ConfigurationKey key = ConfigurationKey.of(computer);
+        Segment segment = segmentFor(key);
+        synchronized (segment) {
+            Quote cached = segment.get(key);
+            if (cached != null) {
+                hits.increment();
+                return cached;
+            }
+        }
+        misses.increment();
+        long startGeneration = generation.get();
+        Quote quote = price(key, computer);
+        synchronized (segment) {
+            // A price changed while pricing, so this quote may be stale; don't cache it
+            if (generation.get() != startGeneration) {
+                return quote;
+            }
+            Quote raced = segment.putIfAbsent(key, quote);
+            if (raced != null) {
+                return raced;
+            }
+            index(key);
+            // An invalidation that started while indexing may have taken the component's
+            // key set before this key was added to it; back out rather than stay stale
+            if (generation.get() != startGeneration) {
+                segment.remove(key);
+                unindex(key);
+            }
+            return quote;
+        }
+    }
+
+    private Quote price(ConfigurationKey key, Computer computer) {
+        long total = 0;
+        for (String component : key.components()) {
+            total += catalog.getPrice(component);
+        }
+        return new Quote(computer.toString(), total);
+    }
+
+    private void index(ConfigurationKey key) {
+        for (String component : key.components()) {
+            if (component.isEmpty()) {
+                continue;
+            }
+            keysByComponent.compute(component, (c, keys) -> {
+                Set<ConfigurationKey> set = keys != null ? keys : ConcurrentHashMap.newKeySet();
+                set.add(key);
+                return set;
+            });
+        }
+    }
+
+    private void unindex(ConfigurationKey key) {
+        for (String component : key.components()) {
+            keysByComponent.computeIfPresent(component, (c, keys) -> {
+                keys.remove(key);
+                return keys.isEmpty() ? null : keys;
+            });
+        }
+    }
+
+    // Drops every cached quote that includes the given component
+    public void invalidateComponent(String component) {
+        generation.incrementAndGet();
+        Set<ConfigurationKey> keys = keysByComponent.remove(ConfigurationKey.normalize(component));
+        if (keys == null) {
+            return;
+        }
+        for (ConfigurationKey key : keys) {
+            Segment segment = segmentFor(key);
+            synchronized (segment) {
+                segment.remove(key);
+                unindex(key);
+            }
+        }
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public String toString() {
+        return "QuoteService{" +
+                "size=" + size() +
+                ", hits=" + getHits() +
+                ", misses=" + getMisses() +
+                ", evictions=" + getEvictions() +
+                '}';
+    }
+}
+
 public class ComputerShop {
     private static final Logger logger = Logger.getLogger(ComputerShop.class.getName());
 
@@ -78,6 +387,28 @@ public class ComputerShop {
         logger.info("Gaming PC: " + gamingPC);
         logger.info("Office PC: " + officePC);
 
+        ComponentCatalog catalog = new ComponentCatalog();
+        catalog.setPrice("Intel i9", 55000);
+        catalog.setPrice("Intel i5", 25000);
+        catalog.setPrice("32GB", 12000);
+        catalog.setPrice("16GB", 6500);
+        catalog.setPrice("1TB SSD", 9000);
+        catalog.setPrice("512GB SSD", 5500);
+        catalog.setPrice("NVIDIA RTX 3080", 70000);
+        catalog.setPrice("850W", 11000);
+
+        QuoteService quoteService = QuoteService.create(catalog, 4096);
+        logger.info("Gaming PC quote: " + quoteService.quote(gamingPC));
+        logger.info("Office PC quote: " + quoteService.quote(officePC));
+        logger.info("Gaming PC repeat quote: " + quoteService.quote(gamingPC));
+
+        // A price change invalidates only the quotes that use that component
+        catalog.setPrice("NVIDIA RTX 3080", 65000);
+        logger.info("Gaming PC quote after GPU price change: " + quoteService.quote(gamingPC));
+        logger.info("Office PC repeat quote: " + quoteService.quote(officePC));
+        logger.info("Quote cache stats: " + quoteService);
+        quoteService.close();
+
         logger.info("Computer Shop demo completed.");
     }
 }
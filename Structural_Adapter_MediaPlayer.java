@@ -1,5 +1,45 @@
 package com.example.designpatterns.structural.adapter;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.logging.Logger;
 
 interface MediaPlayer {
@@ -11,12 +51,237 @@ interface AdvancedMediaPlayer {
     void playMp4(String fileName);
 }
 
+// Supported formats; audio type strings are resolved once and cached
+enum MediaFormat {
+    MP3, VLC, MP4;
+
+    private static final Map<String, MediaFormat> resolved = new ConcurrentHashMap<>();
+    private static final Set<String> MP4_BRANDS = Set.of(
+            "isom", "iso2", "iso3", "iso4", "iso5", "iso6", "mp41", "mp42", "avc1",
+            "M4A ", "M4B ", "M4P ", "M4V ", "dash", "mmp4", "f4v ", "3gp4", "3gp5", "3gp6", "3g2a", "qt  ");
+
+    // Returns null for unsupported types
+    static MediaFormat fromType(String audioType) {
+        if (audioType == null) {
+            return null;
+        }
+        MediaFormat format = resolved.get(audioType);
+        if (format == null) {
+            format = lookup(audioType);
+            if (format != null) {
+                resolved.put(audioType, format);
+            }
+        }
+        return format;
+    }
+
+    // Detects the format from the first bytes of a file, falling back to its extension
+    static MediaFormat detect(byte[] header, int length, String fileName) {
+        if (startsWith(header, length, 0, 'I', 'D', '3')) {
+            return MP3;
+        }
+        // Bare MPEG frame sync also matches UTF-16LE text and ADTS AAC, so besides a valid
+        // header it needs either a .mp3 name or a second frame where the first one ends
+        int frameLength = mpegFrameLength(header, length, 0);
+        if (frameLength >= 0) {
+            if ("mp3".equalsIgnoreCase(extension(fileName))) {
+                return MP3;
+            }
+            if (frameLength > 0 && mpegFrameLength(header, length, frameLength) >= 0
+                    && (header[1] & 0x1E) == (header[frameLength + 1] & 0x1E)
+                    && (header[2] & 0x0C) == (header[frameLength + 2] & 0x0C)) {
+                return MP3;
+            }
+        }
+        if (startsWith(header, length, 4, 'f', 't', 'y', 'p')) {
+            // ftyp also fronts HEIC/AVIF images; only MP4 family major brands are playable
+            return length >= 12 && MP4_BRANDS.contains(new String(header, 8, 4, StandardCharsets.ISO_8859_1))
+                    ? MP4 : null;
+        }
+        // Containers the VLC player handles: Matroska/WebM, AVI, Ogg and FLV
+        if (startsWith(header, length, 0, 0x1A, 0x45, 0xDF, 0xA3)
+                || (startsWith(header, length, 0, 'R', 'I', 'F', 'F') && startsWith(header, length, 8, 'A', 'V', 'I', ' '))
+                || startsWith(header, length, 0, 'O', 'g', 'g', 'S')
+                || startsWith(header, length, 0, 'F', 'L', 'V')) {
+            return VLC;
+        }
+        String extension = extension(fileName);
+        return extension == null ? null : fromType(extension);
+    }
+
+    private static String extension(String fileName) {
+        int dot = fileName.lastIndexOf('.');
+        return dot < 0 ? null : fileName.substring(dot + 1);
+    }
+
+    // Bitrates in kbps, rows: MPEG-1 layer I, II, III, then MPEG-2/2.5 layer I, layers II and III
+    private static final int[][] MPEG_BITRATES = {
+            {0, 32, 64, 96, 128, 160, 192, 224, 256, 288, 320, 352, 384, 416, 448},
+            {0, 32, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320, 384},
+            {0, 32, 40, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320},
+            {0, 32, 48, 56, 64, 80, 96, 112, 128, 144, 160, 176, 192, 224, 256},
+            {0, 8, 16, 24, 32, 40, 48, 56, 64, 80, 96, 112, 128, 144, 160}
+    };
+    private static final int[][] MPEG_SAMPLE_RATES = {
+            {11025, 12000, 8000}, null, {22050, 24000, 16000}, {44100, 48000, 32000}
+    };
+
+    // Returns the frame length for a valid MPEG audio header at offset, 0 for a free-format
+    // bitrate, or -1 if there is no valid header there
+    private static int mpegFrameLength(byte[] header, int length, int offset) {
+        if (length < offset + 4) {
+            return -1;
+        }
+        int b1 = header[offset + 1] & 0xFF;
+        int b2 = header[offset + 2] & 0xFF;
+        int version = (b1 >> 3) & 3;
+        int layer = (b1 >> 1) & 3;
+        int bitrateIndex = b2 >> 4;
+        int sampleRateIndex = (b2 >> 2) & 3;
+        if ((header[offset] & 0xFF) != 0xFF || (b1 & 0xE0) != 0xE0
+                || version == 1 || layer == 0 || bitrateIndex == 15 || sampleRateIndex == 3) {
+            return -1;
+        }
+        if (bitrateIndex == 0) {
+            return 0;
+        }
+        boolean mpeg1 = version == 3;
+        int row = mpeg1 ? 3 - layer : (layer == 3 ? 3 : 4);
+        int bitrate = MPEG_BITRATES[row][bitrateIndex] * 1000;
+        int sampleRate = MPEG_SAMPLE_RATES[version][sampleRateIndex];
+        int padding = (b2 >> 1) & 1;
+        if (layer == 3) {
+            return (12 * bitrate / sampleRate + padding) * 4;
+        }
+        return (layer == 1 && !mpeg1 ? 72 : 144) * bitrate / sampleRate + padding;
+    }
+
+    private static boolean startsWith(byte[] header, int length, int offset, int... magic) {
+        if (length < offset + magic.length) {
+            return false;
+        }
+        for (int i = 0; i < magic.length; i++) {
+            if ((header[offset + i] & 0xFF) != magic[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static MediaFormat lookup(String audioType) {
+        for (MediaFormat format : values()) {
+            if (format.name().equalsIgnoreCase(audioType.trim())) {
+                return format;
+            }
+        }
+        return null;
+    }
+}
+
+// Stand-in for the audio device: accepts and counts decoded bytes
+class AudioOutput implements WritableByteChannel {
+    private final LongAdder bytesWritten = new LongAdder();
+
+    @Override
+    public int write(ByteBuffer src) {
+        int n = src.remaining();
+        src.position(src.limit());
+        bytesWritten.add(n);
+        return n;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return true;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten.sum();
+    }
+}
+
+// Streams files to a sink through reusable direct buffers, or transferTo where the sink supports it
+class MediaStreamer {
+    static final int BUFFER_SIZE = 256 * 1024;
+
+    private final ThreadLocal<ByteBuffer> buffers =
+            ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(BUFFER_SIZE));
+
+    // Streams a file and logs the outcome instead of throwing
+    public void play(String fileName, WritableByteChannel sink, Logger logger) {
+        try {
+            long bytes = stream(Paths.get(fileName), sink);
+            logger.info("Finished " + fileName + " (" + bytes + " bytes)");
+        } catch (NoSuchFileException e) {
+            logger.warning("File not found: " + fileName);
+        } catch (IOException e) {
+            logger.warning("Playback failed for " + fileName + ": " + e.getMessage());
+        }
+    }
+
+    public long stream(Path file, WritableByteChannel sink) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (sink instanceof FileChannel
+                    || (sink instanceof SelectableChannel && ((SelectableChannel) sink).isBlocking())) {
+                return transfer(channel, sink);
+            }
+            ByteBuffer buffer = buffers.get();
+            buffer.clear();
+            return copy(channel, buffer, sink);
+        }
+    }
+
+    // The buffer is in fill mode and may already hold data read ahead from the channel
+    static long copy(FileChannel channel, ByteBuffer buffer, WritableByteChannel sink) throws IOException {
+        long total = 0;
+        while (true) {
+            int n = channel.read(buffer);
+            if (n < 0 && buffer.position() == 0) {
+                break;
+            }
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                total += sink.write(buffer);
+            }
+            buffer.clear();
+            if (n < 0) {
+                break;
+            }
+        }
+        return total;
+    }
+
+    // Re-reads the size each round so a file truncated mid-playback ends the loop
+    private static long transfer(FileChannel channel, WritableByteChannel sink) throws IOException {
+        long position = 0;
+        while (true) {
+            long n = channel.transferTo(position, Math.max(0, channel.size() - position), sink);
+            if (n == 0 && position >= channel.size()) {
+                return position;
+            }
+            position += n;
+        }
+    }
+}
+
 class VlcPlayer implements AdvancedMediaPlayer {
     private static final Logger logger = Logger.getLogger(VlcPlayer.class.getName());
+    private final MediaStreamer streamer;
+    private final WritableByteChannel output;
+
+    VlcPlayer(MediaStreamer streamer, WritableByteChannel output) {
+        this.streamer = streamer;
+        this.output = output;
+    }
 
     @Override
     public void playVlc(String fileName) {
         logger.info("Playing vlc file. Name: " + fileName);
+        streamer.play(fileName, output, logger);
     }
 
     @Override
@@ -27,6 +292,13 @@ class VlcPlayer implements AdvancedMediaPlayer {
 
 class Mp4Player implements AdvancedMediaPlayer {
     private static final Logger logger = Logger.getLogger(Mp4Player.class.getName());
+    private final MediaStreamer streamer;
+    private final WritableByteChannel output;
+
+    Mp4Player(MediaStreamer streamer, WritableByteChannel output) {
+        this.streamer = streamer;
+        this.output = output;
+    }
 
     @Override
     public void playVlc(String fileName) {
@@ -36,23 +308,583 @@ class Mp4Player implements AdvancedMediaPlayer {
     @Override
     public void playMp4(String fileName) {
         logger.info("Playing mp4 file. Name: " + fileName);
+        streamer.play(fileName, output, logger);
     }
 }
 
 class MediaAdapter implements MediaPlayer {
     AdvancedMediaPlayer advancedMusicPlayer;
 
-    public MediaAdapter(String audioType) {
-        if (audioType.equalsIgnoreCase("vlc")) {
-            advancedMusicPlayer = new VlcPlayer();
-        } else if (audioType.equalsIgnoreCase("mp4")) {
-            advancedMusicPlayer = new Mp4Player();
+    public MediaAdapter(AdvancedMediaPlayer advancedMusicPlayer) {
+        this.advancedMusicPlayer = advancedMusicPlayer;
+    }
+
+    @Override
+    public void play(String audioType, String fileName) {
+        MediaFormat format = MediaFormat.fromType(audioType);
+        if (format == null) {
+            throw new IllegalArgumentException("Unsupported media type: " + audioType);
         }
+        switch (format) {
+            case VLC:
+                advancedMusicPlayer.playVlc(fileName);
+                break;
+            case MP4:
+                advancedMusicPlayer.playMp4(fileName);
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported media type: " + audioType);
+        }
+    }
+}
+
+class AudioPlayer implements MediaPlayer {
+    private static final Logger logger = Logger.getLogger(AudioPlayer.class.getName());
+    private final MediaStreamer streamer;
+    private final WritableByteChannel output;
+
+    // Players are stateless apart from their sink, so one adapter per format is shared
+    private final Map<MediaFormat, MediaAdapter> adapters = new EnumMap<>(MediaFormat.class);
+
+    AudioPlayer(MediaStreamer streamer, WritableByteChannel output) {
+        this.streamer = streamer;
+        this.output = output;
+        adapters.put(MediaFormat.VLC, new MediaAdapter(new VlcPlayer(streamer, output)));
+        adapters.put(MediaFormat.MP4, new MediaAdapter(new Mp4Player(streamer, output)));
     }
 
     @Override
     public void play(String audioType, String fileName) {
-        if (audioType.equalsIgnoreCase("vlc")) {
-            advancedMusicPlayer.playVlc(fileName);
-        } else if (audioType.equalsIgnoreCase("mp4")) {
-            advancedMusicPlayer.playMp
+        MediaFormat format = MediaFormat.fromType(audioType);
+        if (format == MediaFormat.MP3) {
+            logger.info("Playing mp3 file. Name: " + fileName);
+            streamer.play(fileName, output, logger);
+        } else if (format != null) {
+            adapters.get(format).play(audioType, fileName);
+        } else {
+            logger.warning("Invalid media. " + audioType + " format not supported");
+        }
+    }
+}
+
+// Plays tracks back to back, opening and pre-reading the next track while the current one streams.
+// Memory stays at two direct buffers regardless of file size or playlist length.
+class PlaylistPlayer implements AutoCloseable {
+    private static final Logger logger = Logger.getLogger(PlaylistPlayer.class.getName());
+
+    private final BlockingQueue<ByteBuffer> bufferPool = new ArrayBlockingQueue<>(2);
+    private final ExecutorService readAhead = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "playlist-read-ahead");
+        t.setDaemon(true);
+        return t;
+    });
+    // The prefetch not yet handed to play(), so close() can free it
+    private final AtomicReference<Future<OpenTrack>> pending = new AtomicReference<>();
+
+    PlaylistPlayer() {
+        bufferPool.add(ByteBuffer.allocateDirect(MediaStreamer.BUFFER_SIZE));
+        bufferPool.add(ByteBuffer.allocateDirect(MediaStreamer.BUFFER_SIZE));
+    }
+
+    private static final class OpenTrack {
+        final Path path;
+        final FileChannel channel;
+        final ByteBuffer buffer;
+        final AtomicBoolean released = new AtomicBoolean();
+
+        OpenTrack(Path path, FileChannel channel, ByteBuffer buffer) {
+            this.path = path;
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+    }
+
+    public long play(List<Path> tracks, WritableByteChannel sink) throws InterruptedException {
+        long total = 0;
+        Future<OpenTrack> next = tracks.isEmpty() ? null : prefetch(tracks.get(0));
+        try {
+            for (int i = 0; i < tracks.size(); i++) {
+                OpenTrack current = await(next, tracks.get(i));
+                next = i + 1 < tracks.size() ? prefetch(tracks.get(i + 1)) : null;
+                if (current == null) {
+                    continue;
+                }
+                try {
+                    long bytes = MediaStreamer.copy(current.channel, current.buffer, sink);
+                    total += bytes;
+                    logger.info("Played " + current.path + " (" + bytes + " bytes)");
+                } catch (ClosedByInterruptException e) {
+                    throw new InterruptedException("Interrupted while playing " + current.path);
+                } catch (IOException e) {
+                    logger.warning("Playback failed for " + current.path + ": " + e.getMessage());
+                } finally {
+                    release(current);
+                }
+            }
+        } finally {
+            // A sink failure or interrupt leaves the next track prefetched; give its buffer back
+            if (next != null) {
+                discard(next);
+            }
+        }
+        return total;
+    }
+
+    private Future<OpenTrack> prefetch(Path path) {
+        Future<OpenTrack> future = readAhead.submit(() -> {
+            ByteBuffer buffer = bufferPool.take();
+            buffer.clear();
+            try {
+                FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+                try {
+                    channel.read(buffer);
+                } catch (IOException e) {
+                    channel.close();
+                    throw e;
+                }
+                return new OpenTrack(path, channel, buffer);
+            } catch (IOException | RuntimeException e) {
+                bufferPool.add(buffer);
+                throw e;
+            }
+        });
+        pending.set(future);
+        return future;
+    }
+
+    private OpenTrack await(Future<OpenTrack> future, Path path) throws InterruptedException {
+        try {
+            OpenTrack track = future.get();
+            pending.compareAndSet(future, null);
+            return track;
+        } catch (ExecutionException e) {
+            pending.compareAndSet(future, null);
+            logger.warning("Skipping " + path + ": " + e.getCause());
+            return null;
+        }
+    }
+
+    // Cancels a prefetch that has not started, or waits for it and releases its track
+    private void discard(Future<OpenTrack> future) {
+        pending.compareAndSet(future, null);
+        if (future.cancel(false)) {
+            return;
+        }
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    release(future.get());
+                    return;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException | CancellationException e) {
+                    return;
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void release(OpenTrack track) {
+        if (!track.released.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            track.channel.close();
+        } catch (IOException e) {
+            logger.warning("Could not close " + track.path + ": " + e.getMessage());
+        }
+        bufferPool.add(track.buffer);
+    }
+
+    @Override
+    public void close() {
+        readAhead.shutdown();
+        Future<OpenTrack> future = pending.getAndSet(null);
+        if (future != null) {
+            discard(future);
+        }
+    }
+}
+
+// Format is null for files that were checked and are not media, so rescans can skip them
+final class MediaMetadata {
+    private final Path path;
+    private final MediaFormat format;
+    private final long size;
+    private final long lastModified;
+
+    MediaMetadata(Path path, MediaFormat format, long size, long lastModified) {
+        this.path = path;
+        this.format = format;
+        this.size = size;
+        this.lastModified = lastModified;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public MediaFormat getFormat() {
+        return format;
+    }
+
+    public boolean isMedia() {
+        return format != null;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    boolean isUnchanged(BasicFileAttributes attributes) {
+        return size == attributes.size() && lastModified == attributes.lastModifiedTime().toMillis();
+    }
+
+    @Override
+    public String toString() {
+        return "MediaMetadata{" +
+                "path=" + path +
+                ", format=" + format +
+                ", size=" + size +
+                '}';
+    }
+}
+
+// Indexes media directories in parallel, persists the index to disk and
+// keeps recently looked-up files in an LRU cache
+class MediaLibrary {
+    private static final Logger logger = Logger.getLogger(MediaLibrary.class.getName());
+    // Enough for the container magic numbers and a second MPEG frame header
+    private static final int HEADER_SIZE = 4096;
+    private static final int CHUNK_SIZE = 512;
+
+    private final Map<Path, MediaMetadata> index = new ConcurrentHashMap<>();
+    private final Map<String, MediaMetadata> recent;
+    private final ForkJoinPool pool;
+
+    public MediaLibrary(int cacheSize, int parallelism) {
+        if (cacheSize <= 0 || parallelism <= 0) {
+            throw new IllegalArgumentException("Cache size and parallelism must be positive.");
+        }
+        this.recent = new LinkedHashMap<String, MediaMetadata>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, MediaMetadata> eldest) {
+                return size() > cacheSize;
+            }
+        };
+        this.pool = new ForkJoinPool(parallelism);
+    }
+
+    // Scan counters for one (re)scan of a directory tree
+    static final class ScanResult {
+        final AtomicInteger added = new AtomicInteger();
+        final AtomicInteger updated = new AtomicInteger();
+        final AtomicInteger unchanged = new AtomicInteger();
+        final AtomicInteger removed = new AtomicInteger();
+        final AtomicInteger ignored = new AtomicInteger();
+
+        @Override
+        public String toString() {
+            return "ScanResult{" +
+                    "added=" + added +
+                    ", updated=" + updated +
+                    ", unchanged=" + unchanged +
+                    ", removed=" + removed +
+                    ", ignored=" + ignored +
+                    '}';
+        }
+    }
+
+    // Only files whose size or modification time changed since the last scan are re-read
+    public ScanResult scan(Path root) {
+        Path dir = root.toAbsolutePath().normalize();
+        ScanResult result = new ScanResult();
+        Set<Path> seen = ConcurrentHashMap.newKeySet();
+        pool.invoke(new ScanTask(dir, seen, result));
+
+        Iterator<Map.Entry<Path, MediaMetadata>> it = index.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Path, MediaMetadata> entry = it.next();
+            if (entry.getKey().startsWith(dir) && !seen.contains(entry.getKey())) {
+                it.remove();
+                if (entry.getValue().isMedia()) {
+                    result.removed.incrementAndGet();
+                }
+            }
+        }
+        if (result.added.get() + result.updated.get() + result.removed.get() > 0) {
+            synchronized (recent) {
+                recent.values().removeIf(cached -> index.get(cached.getPath()) != cached);
+            }
+        }
+        return result;
+    }
+
+    // Lists one directory and hands its entries to chunk tasks, so a flat directory
+    // with many files is still spread across the pool
+    private final class ScanTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final Path dir;
+        private final Set<Path> seen;
+        private final ScanResult result;
+
+        ScanTask(Path dir, Set<Path> seen, ScanResult result) {
+            this.dir = dir;
+            this.seen = seen;
+            this.result = result;
+        }
+
+        @Override
+        protected void compute() {
+            List<EntriesTask> chunks = new ArrayList<>();
+            List<Path> chunk = new ArrayList<>(CHUNK_SIZE);
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+                for (Path entry : entries) {
+                    chunk.add(entry);
+                    if (chunk.size() == CHUNK_SIZE) {
+                        chunks.add(fork(chunk));
+                        chunk = new ArrayList<>(CHUNK_SIZE);
+                    }
+                }
+            } catch (IOException e) {
+                logger.warning("Could not scan " + dir + ": " + e.getMessage());
+            }
+            if (!chunk.isEmpty()) {
+                chunks.add(fork(chunk));
+            }
+            for (int i = chunks.size() - 1; i >= 0; i--) {
+                chunks.get(i).join();
+            }
+        }
+
+        private EntriesTask fork(List<Path> chunk) {
+            EntriesTask task = new EntriesTask(chunk, seen, result);
+            task.fork();
+            return task;
+        }
+    }
+
+    // Reads attributes for a chunk of directory entries, indexing files and scanning subdirectories
+    private final class EntriesTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final List<Path> entries;
+        private final Set<Path> seen;
+        private final ScanResult result;
+
+        EntriesTask(List<Path> entries, Set<Path> seen, ScanResult result) {
+            this.entries = entries;
+            this.seen = seen;
+            this.result = result;
+        }
+
+        @Override
+        protected void compute() {
+            List<ScanTask> subdirectories = new ArrayList<>();
+            for (Path entry : entries) {
+                try {
+                    BasicFileAttributes attributes = Files.readAttributes(entry, BasicFileAttributes.class,
+                            LinkOption.NOFOLLOW_LINKS);
+                    if (attributes.isDirectory()) {
+                        subdirectories.add(new ScanTask(entry, seen, result));
+                    } else if (attributes.isRegularFile()) {
+                        indexFile(entry, attributes);
+                    }
+                } catch (IOException e) {
+                    logger.warning("Could not read " + entry + ": " + e.getMessage());
+                }
+            }
+            invokeAll(subdirectories);
+        }
+
+        private void indexFile(Path file, BasicFileAttributes attributes) {
+            MediaMetadata existing = index.get(file);
+            if (existing != null && existing.isUnchanged(attributes)) {
+                seen.add(file);
+                (existing.isMedia() ? result.unchanged : result.ignored).incrementAndGet();
+                return;
+            }
+            MediaMetadata metadata = probe(file, attributes);
+            if (metadata == null) {
+                return;
+            }
+            seen.add(file);
+            index.put(file, metadata);
+            if (!metadata.isMedia()) {
+                result.ignored.incrementAndGet();
+            } else {
+                (existing == null || !existing.isMedia() ? result.added : result.updated).incrementAndGet();
+            }
+        }
+    }
+
+    // Returns null for unreadable files; files that are not a supported format get a null format
+    private static MediaMetadata probe(Path file, BasicFileAttributes attributes) {
+        byte[] header = new byte[HEADER_SIZE];
+        int length;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.wrap(header);
+            while (buffer.hasRemaining() && channel.read(buffer) > 0) {
+                // keep reading until the header is full or the file ends
+            }
+            length = buffer.position();
+        } catch (IOException e) {
+            logger.warning("Could not read " + file + ": " + e.getMessage());
+            return null;
+        }
+        MediaFormat format = MediaFormat.detect(header, length, file.getFileName().toString());
+        return new MediaMetadata(file, format, attributes.size(), attributes.lastModifiedTime().toMillis());
+    }
+
+    // Resolves a file name to its metadata: LRU cache, then the index, then the file itself
+    public MediaMetadata lookup(String fileName) {
+        synchronized (recent) {
+            MediaMetadata cached = recent.get(fileName);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        Path path = Paths.get(fileName).toAbsolutePath().normalize();
+        MediaMetadata metadata = index.get(path);
+        boolean fromIndex = metadata != null;
+        if (metadata == null) {
+            try {
+                metadata = probe(path, Files.readAttributes(path, BasicFileAttributes.class));
+            } catch (IOException e) {
+                return null;
+            }
+        }
+        if (metadata == null || !metadata.isMedia()) {
+            return null;
+        }
+        synchronized (recent) {
+            // A scan may have replaced the entry, and already pruned the cache, since it was read
+            if (fromIndex && index.get(path) != metadata) {
+                return metadata;
+            }
+            recent.put(fileName, metadata);
+        }
+        return metadata;
+    }
+
+    // Plays a file without the caller knowing its type
+    public void play(String fileName, MediaPlayer player) {
+        MediaMetadata metadata = lookup(fileName);
+        if (metadata == null) {
+            logger.warning("Not a playable media file: " + fileName);
+            return;
+        }
+        player.play(metadata.getFormat().name().toLowerCase(Locale.ROOT), metadata.getPath().toString());
+    }
+
+    // Number of media files in the index
+    public int size() {
+        return (int) index.values().stream().filter(MediaMetadata::isMedia).count();
+    }
+
+    // One tab-separated line per file: format ("-" for non-media), size, last modified millis, path
+    public void save(Path indexFile) throws IOException {
+        Path temp = indexFile.resolveSibling(indexFile.getFileName() + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            for (MediaMetadata metadata : index.values()) {
+                writer.write(metadata.isMedia() ? metadata.getFormat().name() : "-");
+                writer.write('\t');
+                writer.write(Long.toString(metadata.getSize()));
+                writer.write('\t');
+                writer.write(Long.toString(metadata.getLastModified()));
+                writer.write('\t');
+                writer.write(metadata.getPath().toString());
+                writer.newLine();
+            }
+        }
+        Files.move(temp, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public void load(Path indexFile) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(indexFile, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t", 4);
+                if (fields.length != 4) {
+                    logger.warning("Skipping malformed index line: " + line);
+                    continue;
+                }
+                try {
+                    Path path = Paths.get(fields[3]);
+                    MediaFormat format = fields[0].equals("-") ? null : MediaFormat.valueOf(fields[0]);
+                    index.put(path, new MediaMetadata(path, format,
+                            Long.parseLong(fields[1]), Long.parseLong(fields[2])));
+                } catch (IllegalArgumentException e) {
+                    logger.warning("Skipping malformed index line: " + line);
+                }
+            }
+        }
+    }
+
+    public void shutdown() {
+        pool.shutdown();
+    }
+}
+
+public class MediaPlayerApp {
+    private static final Logger logger = Logger.getLogger(MediaPlayerApp.class.getName());
+
+    public static void demo() throws IOException, InterruptedException {
+        Path dir = Files.createTempDirectory("media-demo");
+        List<Path> playlist = new ArrayList<>();
+        List<Path> cleanup = new ArrayList<>();
+        try {
+            byte[] payload = new byte[3 * MediaStreamer.BUFFER_SIZE + 123];
+            for (String name : new String[] {"beyond the horizon.mp3", "alone.mp4", "far far away.vlc"}) {
+                playlist.add(Files.write(dir.resolve(name), payload));
+            }
+            cleanup.addAll(playlist);
+
+            AudioOutput output = new AudioOutput();
+            AudioPlayer audioPlayer = new AudioPlayer(new MediaStreamer(), output);
+            audioPlayer.play("mp3", playlist.get(0).toString());
+            audioPlayer.play("mp4", playlist.get(1).toString());
+            audioPlayer.play("vlc", playlist.get(2).toString());
+            audioPlayer.play("avi", "mind me.avi");
+
+            try (PlaylistPlayer playlistPlayer = new PlaylistPlayer()) {
+                long bytes = playlistPlayer.play(playlist, output);
+                logger.info(String.format(Locale.ROOT, "Playlist streamed %d bytes", bytes));
+            }
+            logger.info("Total bytes sent to audio output: " + output.getBytesWritten());
+
+            // Index the directory; the library detects formats from file headers
+            Path indexFile = dir.resolve("library.index");
+            cleanup.add(indexFile);
+            Path untagged = dir.resolve("untitled");
+            cleanup.add(untagged);
+            Files.write(untagged, new byte[] {0, 0, 0, 24, 'f', 't', 'y', 'p', 'i', 's', 'o', 'm'});
+
+            MediaLibrary library = new MediaLibrary(1024, 4);
+            logger.info("Initial scan: " + library.scan(dir));
+            library.save(indexFile);
+
+            MediaLibrary reloaded = new MediaLibrary(1024, 4);
+            reloaded.load(indexFile);
+            logger.info("Rescan after reload: " + reloaded.scan(dir));
+            reloaded.play(untagged.toString(), audioPlayer);
+            library.shutdown();
+            reloaded.shutdown();
+        } finally {
+            for (Path file : cleanup) {
+                Files.deleteIfExists(file);
+            }
+            Files.deleteIfExists(dir);
+        }
+
+        logger.info("Media Player demo completed.");
+    }
+}
@@ -1,11 +1,35 @@
 package com.example.designpatterns.structural.decorator;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
 import java.util.logging.Logger;
 
 // Component interface
 interface Coffee {
     String getDescription();
     double getCost();
+
+    // Exact cost; the default rounds getCost() for implementations that only provide that
+    default long getCostInCents() {
+        return Math.round(getCost() * 100);
+    }
 }
 
 // Concrete component
@@ -17,7 +41,12 @@ class SimpleCoffee implements Coffee {
 
     @Override
     public double getCost() {
-        return 1.0;
+        return getCostInCents() / 100.0;
+    }
+
+    @Override
+    public long getCostInCents() {
+        return 100;
     }
 }
 
@@ -29,12 +58,21 @@ abstract class CoffeeDecorator implements Coffee {
         this.decoratedCoffee = coffee;
     }
 
+    // Name and price this decorator adds on top of the decorated coffee
+    protected abstract String getToppingName();
+
+    protected abstract long getToppingCostInCents();
+
     public String getDescription() {
-        return decoratedCoffee.getDescription();
+        return decoratedCoffee.getDescription() + ", " + getToppingName();
     }
 
     public double getCost() {
-        return decoratedCoffee.getCost();
+        return getCostInCents() / 100.0;
+    }
+
+    public long getCostInCents() {
+        return decoratedCoffee.getCostInCents() + getToppingCostInCents();
     }
 }
 
@@ -45,13 +83,13 @@ class Milk extends CoffeeDecorator {
     }
 
     @Override
-    public String getDescription() {
-        return decoratedCoffee.getDescription() + ", Milk";
+    protected String getToppingName() {
+        return "Milk";
     }
 
     @Override
-    public double getCost() {
-        return decoratedCoffee.getCost() + 0.5;
+    protected long getToppingCostInCents() {
+        return 50;
     }
 }
 
@@ -61,13 +99,13 @@ class Sugar extends CoffeeDecorator {
     }
 
     @Override
-    public String getDescription() {
-        return decoratedCoffee.getDescription() + ", Sugar";
+    protected String getToppingName() {
+        return "Sugar";
     }
 
     @Override
-    public double getCost() {
-        return decoratedCoffee.getCost() + 0.2;
+    protected long getToppingCostInCents() {
+        return 20;
     }
 }
 
@@ -76,14 +114,471 @@ class Whip extends CoffeeDecorator {
         super(coffee);
     }
 
+    @Override
+    protected String getToppingName() {
+        return "Whip";
+    }
+
+    @Override
+    protected long getToppingCostInCents() {
+        return 70;
+    }
+}
+
+// Flattened order: description and cost computed once from a decorator chain
+final class CompiledCoffee implements Coffee {
+    private final List<Object> recipeKey;
+    private final String description;
+    private final long costInCents;
+
+    CompiledCoffee(List<Object> recipeKey, String description, long costInCents) {
+        this.recipeKey = recipeKey;
+        this.description = description;
+        this.costInCents = costInCents;
+    }
+
+    public List<Object> getRecipeKey() {
+        return recipeKey;
+    }
+
     @Override
     public String getDescription() {
-        return decoratedCoffee.getDescription() + ", Whip";
+        return description;
     }
 
     @Override
     public double getCost() {
-        return decoratedCoffee.getCost() + 0.7;
+        return costInCents / 100.0;
+    }
+
+    @Override
+    public long getCostInCents() {
+        return costInCents;
+    }
+
+    public String getFormattedCost() {
+        return String.format(Locale.ROOT, "$%d.%02d", costInCents / 100, costInCents % 100);
+    }
+}
+
+// Compiles decorated coffees, sharing one instance per base and topping combination
+class RecipeCache {
+    private final Map<List<Object>, CompiledCoffee> recipes = new ConcurrentHashMap<>();
+
+    public CompiledCoffee compile(Coffee coffee) {
+        if (coffee instanceof CompiledCoffee) {
+            return (CompiledCoffee) coffee;
+        }
+        // Unwrap the chain; toppings are collected outermost first
+        List<CoffeeDecorator> toppings = new ArrayList<>();
+        Coffee base = coffee;
+        while (base instanceof CoffeeDecorator) {
+            CoffeeDecorator decorator = (CoffeeDecorator) base;
+            toppings.add(decorator);
+            base = decorator.decoratedCoffee;
+        }
+
+        // The key identifies each layer by class, name and price without building strings;
+        // a plain SimpleCoffee base is identified by its class alone
+        List<Object> key = new ArrayList<>(toppings.size() + 1);
+        if (base instanceof CompiledCoffee) {
+            key.addAll(((CompiledCoffee) base).getRecipeKey());
+        } else if (base.getClass() == SimpleCoffee.class) {
+            key.add(SimpleCoffee.class);
+        } else {
+            key.add(new Layer(base.getClass(), base.getDescription(), base.getCostInCents()));
+        }
+        for (int i = toppings.size() - 1; i >= 0; i--) {
+            CoffeeDecorator topping = toppings.get(i);
+            key.add(new Layer(topping.getClass(), topping.getToppingName(), topping.getToppingCostInCents()));
+        }
+        Coffee root = base;
+        return recipes.computeIfAbsent(key, k -> flatten(Collections.unmodifiableList(k), root, toppings));
+    }
+
+    private static final class Layer {
+        private final Class<?> type;
+        private final String name;
+        private final long costInCents;
+        private final int hash;
+
+        Layer(Class<?> type, String name, long costInCents) {
+            this.type = type;
+            this.name = name;
+            this.costInCents = costInCents;
+            this.hash = Objects.hash(type, name, costInCents);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Layer)) {
+                return false;
+            }
+            Layer other = (Layer) o;
+            return hash == other.hash && type == other.type && costInCents == other.costInCents
+                    && name.equals(other.name);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private static CompiledCoffee flatten(List<Object> key, Coffee base, List<CoffeeDecorator> toppings) {
+        StringBuilder description = new StringBuilder(base.getDescription());
+        long cost = base.getCostInCents();
+        for (int i = toppings.size() - 1; i >= 0; i--) {
+            CoffeeDecorator topping = toppings.get(i);
+            description.append(", ").append(topping.getToppingName());
+            cost += topping.getToppingCostInCents();
+        }
+        return new CompiledCoffee(key, description.toString(), cost);
+    }
+
+    public int size() {
+        return recipes.size();
+    }
+}
+
+// An order waiting in the pipeline intake queue
+final class CoffeeOrder {
+    final int id;
+    final Coffee coffee;
+    final Consumer<CompletedOrder> callback;
+    final long enqueuedNanos;
+    // Set by the barista that owns the order once its callback has been run
+    boolean finished;
+
+    CoffeeOrder(int id, Coffee coffee, Consumer<CompletedOrder> callback) {
+        this.id = id;
+        this.coffee = coffee;
+        this.callback = callback;
+        this.enqueuedNanos = System.nanoTime();
+    }
+}
+
+// A finished order with its per-stage timings, or the reason it could not be made
+final class CompletedOrder {
+    private final int id;
+    private final CompiledCoffee coffee;
+    private final long priceInCents;
+    private final long queueWaitNanos;
+    private final long preparationNanos;
+    private final long pricingNanos;
+    private final long latencyNanos;
+    private final RuntimeException failure;
+
+    CompletedOrder(int id, CompiledCoffee coffee, long priceInCents, long queueWaitNanos,
+                   long preparationNanos, long pricingNanos, long latencyNanos) {
+        this(id, coffee, priceInCents, queueWaitNanos, preparationNanos, pricingNanos, latencyNanos, null);
+    }
+
+    private CompletedOrder(int id, CompiledCoffee coffee, long priceInCents, long queueWaitNanos,
+                           long preparationNanos, long pricingNanos, long latencyNanos,
+                           RuntimeException failure) {
+        this.id = id;
+        this.coffee = coffee;
+        this.priceInCents = priceInCents;
+        this.queueWaitNanos = queueWaitNanos;
+        this.preparationNanos = preparationNanos;
+        this.pricingNanos = pricingNanos;
+        this.latencyNanos = latencyNanos;
+        this.failure = failure;
+    }
+
+    static CompletedOrder failed(int id, long queueWaitNanos, long latencyNanos, RuntimeException failure) {
+        return new CompletedOrder(id, null, 0, queueWaitNanos, 0, 0, latencyNanos, failure);
+    }
+
+    public boolean isFailed() {
+        return failure != null;
+    }
+
+    // Null unless the order failed
+    public RuntimeException getFailure() {
+        return failure;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    // Null for failed orders
+    public CompiledCoffee getCoffee() {
+        return coffee;
+    }
+
+    public long getPriceInCents() {
+        return priceInCents;
+    }
+
+    public long getQueueWaitNanos() {
+        return queueWaitNanos;
+    }
+
+    public long getPreparationNanos() {
+        return preparationNanos;
+    }
+
+    public long getPricingNanos() {
+        return pricingNanos;
+    }
+
+    public long getLatencyNanos() {
+        return latencyNanos;
+    }
+}
+
+// Bounded intake queue drained by a pool of baristas that batch identical recipes
+class OrderPipeline {
+    private static final Logger logger = Logger.getLogger(OrderPipeline.class.getName());
+
+    private final BlockingQueue<CoffeeOrder> intake;
+    private final RecipeCache recipeCache;
+    private final int baristas;
+    private final int maxBatchSize;
+    private final long brewNanosPerBatch;
+    private final ExecutorService workers;
+    private final AtomicInteger nextOrderId = new AtomicInteger();
+    private volatile boolean accepting = true;
+
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder queueWaitNanos = new LongAdder();
+    private final LongAdder preparationNanos = new LongAdder();
+    private final LongAdder pricingNanos = new LongAdder();
+
+    public OrderPipeline(int baristas, int queueCapacity, int maxBatchSize, long brewMicrosPerBatch,
+                         RecipeCache recipeCache) {
+        if (baristas <= 0 || queueCapacity <= 0 || maxBatchSize <= 0) {
+            throw new IllegalArgumentException("Baristas, queue capacity and batch size must be positive.");
+        }
+        this.intake = new ArrayBlockingQueue<>(queueCapacity);
+        this.recipeCache = recipeCache;
+        this.baristas = baristas;
+        this.maxBatchSize = maxBatchSize;
+        this.brewNanosPerBatch = TimeUnit.MICROSECONDS.toNanos(brewMicrosPerBatch);
+        this.workers = Executors.newFixedThreadPool(baristas, r -> {
+            Thread t = new Thread(r, "barista");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public void start() {
+        for (int i = 0; i < baristas; i++) {
+            workers.execute(this::runBarista);
+        }
+    }
+
+    // Blocks while the intake queue is full
+    public void submit(Coffee coffee, Consumer<CompletedOrder> callback) throws InterruptedException {
+        Objects.requireNonNull(coffee, "coffee");
+        if (!accepting) {
+            throw new IllegalStateException("Pipeline is shut down.");
+        }
+        CoffeeOrder order = new CoffeeOrder(nextOrderId.getAndIncrement(), coffee, callback);
+        intake.put(order);
+        // Shutdown may have started during put() and the baristas may already have seen an
+        // empty queue; take the order back rather than leave it unserved. If it is gone,
+        // a barista picked it up and will complete it.
+        if (!accepting && intake.remove(order)) {
+            throw new IllegalStateException("Pipeline is shut down.");
+        }
+    }
+
+    // Stops intake and waits for the baristas to finish the queued orders
+    public void shutdown() throws InterruptedException {
+        accepting = false;
+        workers.shutdown();
+        if (!workers.awaitTermination(30, TimeUnit.SECONDS)) {
+            logger.warning("Baristas did not finish in time; " + intake.size() + " orders left.");
+            workers.shutdownNow();
+        }
+    }
+
+    private void runBarista() {
+        List<CoffeeOrder> batch = new ArrayList<>(maxBatchSize);
+        Map<List<Object>, List<CoffeeOrder>> byRecipe = new LinkedHashMap<>();
+        Map<List<Object>, CompiledCoffee> compiled = new LinkedHashMap<>();
+        try {
+            while (accepting || !intake.isEmpty()) {
+                CoffeeOrder first = intake.poll(50, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                intake.drainTo(batch, maxBatchSize - 1);
+                long dequeuedNanos = System.nanoTime();
+
+                try {
+                    for (CoffeeOrder order : batch) {
+                        CompiledCoffee recipe;
+                        try {
+                            recipe = recipeCache.compile(order.coffee);
+                        } catch (RuntimeException e) {
+                            // Only this order is lost; the rest of the batch carries on
+                            fail(order, dequeuedNanos, e);
+                            continue;
+                        }
+                        compiled.putIfAbsent(recipe.getRecipeKey(), recipe);
+                        byRecipe.computeIfAbsent(recipe.getRecipeKey(), k -> new ArrayList<>()).add(order);
+                    }
+                    for (Map.Entry<List<Object>, List<CoffeeOrder>> group : byRecipe.entrySet()) {
+                        prepareAndPrice(compiled.get(group.getKey()), group.getValue(), dequeuedNanos);
+                    }
+                } catch (RuntimeException e) {
+                    // Unexpected; fail whatever is left so no caller waits forever
+                    logger.warning("Barista failed a batch of " + batch.size() + " orders: " + e);
+                    for (CoffeeOrder order : batch) {
+                        if (!order.finished) {
+                            fail(order, dequeuedNanos, e);
+                        }
+                    }
+                } finally {
+                    batch.clear();
+                    byRecipe.clear();
+                    compiled.clear();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void prepareAndPrice(CompiledCoffee recipe, List<CoffeeOrder> orders, long dequeuedNanos) {
+        // One brew serves every order in the group
+        long prepStart = System.nanoTime();
+        if (brewNanosPerBatch > 0) {
+            LockSupport.parkNanos(brewNanosPerBatch);
+        }
+        long prepared = System.nanoTime();
+        batches.increment();
+
+        for (CoffeeOrder order : orders) {
+            long priceStart = System.nanoTime();
+            long priceInCents = recipe.getCostInCents();
+            long priced = System.nanoTime();
+
+            long queueWait = dequeuedNanos - order.enqueuedNanos;
+            long preparation = prepared - prepStart;
+            long pricing = priced - priceStart;
+            queueWaitNanos.add(queueWait);
+            preparationNanos.add(preparation);
+            pricingNanos.add(pricing);
+            completed.increment();
+
+            notify(order, new CompletedOrder(order.id, recipe, priceInCents, queueWait, preparation,
+                    pricing, priced - order.enqueuedNanos));
+        }
+    }
+
+    private void fail(CoffeeOrder order, long dequeuedNanos, RuntimeException failure) {
+        logger.warning("Order " + order.id + " failed: " + failure);
+        failed.increment();
+        notify(order, CompletedOrder.failed(order.id, dequeuedNanos - order.enqueuedNanos,
+                System.nanoTime() - order.enqueuedNanos, failure));
+    }
+
+    private void notify(CoffeeOrder order, CompletedOrder result) {
+        order.finished = true;
+        if (order.callback != null) {
+            try {
+                order.callback.accept(result);
+            } catch (RuntimeException e) {
+                logger.warning("Completion callback failed for order " + order.id + ": " + e);
+            }
+        }
+    }
+
+    public long getCompleted() {
+        return completed.sum();
+    }
+
+    public long getFailed() {
+        return failed.sum();
+    }
+
+    @Override
+    public String toString() {
+        long done = Math.max(1, completed.sum());
+        return String.format(Locale.ROOT,
+                "OrderPipeline{completed=%d, failed=%d, batches=%d, avgQueueWait=%dus, avgPreparation=%dus, "
+                        + "avgPricing=%dns}",
+                completed.sum(), failed.sum(), batches.sum(),
+                TimeUnit.NANOSECONDS.toMicros(queueWaitNanos.sum() / done),
+                TimeUnit.NANOSECONDS.toMicros(preparationNanos.sum() / done),
+                pricingNanos.sum() / done);
+    }
+}
+
+// Pushes a burst of orders through a pipeline and reports latency percentiles
+class OrderLoadGenerator {
+    private static final Logger logger = Logger.getLogger(OrderLoadGenerator.class.getName());
+
+    public static void run(OrderPipeline pipeline, int producers, int ordersPerProducer)
+            throws InterruptedException {
+        int total = producers * ordersPerProducer;
+        long[] latencies = new long[total];
+        AtomicInteger recorded = new AtomicInteger();
+        AtomicInteger failures = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(total);
+        Consumer<CompletedOrder> callback = order -> {
+            if (order.isFailed()) {
+                failures.incrementAndGet();
+            }
+            latencies[recorded.getAndIncrement()] = order.getLatencyNanos();
+            done.countDown();
+        };
+
+        Coffee[] menu = {
+                new SimpleCoffee(),
+                new Milk(new SimpleCoffee()),
+                new Sugar(new Milk(new SimpleCoffee())),
+                new Whip(new Sugar(new Milk(new SimpleCoffee())))
+        };
+
+        long start = System.nanoTime();
+        Thread[] threads = new Thread[producers];
+        for (int p = 0; p < producers; p++) {
+            int seed = p;
+            threads[p] = new Thread(() -> {
+                try {
+                    for (int i = 0; i < ordersPerProducer; i++) {
+                        pipeline.submit(menu[(seed + i) % menu.length], callback);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }, "customer-" + p);
+            threads[p].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        if (!done.await(60, TimeUnit.SECONDS)) {
+            logger.warning("Load test timed out with " + done.getCount() + " orders outstanding.");
+            return;
+        }
+        long elapsed = System.nanoTime() - start;
+
+        Arrays.sort(latencies);
+        logger.info(String.format(Locale.ROOT,
+                "Load test: %d orders (%d failed) in %d ms (%.0f orders/s), p50=%dus, p99=%dus, max=%dus",
+                total, failures.get(), TimeUnit.NANOSECONDS.toMillis(elapsed), total * 1e9 / elapsed,
+                TimeUnit.NANOSECONDS.toMicros(percentile(latencies, 50)),
+                TimeUnit.NANOSECONDS.toMicros(percentile(latencies, 99)),
+                TimeUnit.NANOSECONDS.toMicros(latencies[total - 1])));
+    }
+
+    private static long percentile(long[] sorted, int percentile) {
+        int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, index)];
     }
 }
 
@@ -107,6 +602,22 @@ public class CoffeeShop {
         Coffee specialCoffee = new Whip(new Sugar(new Milk(coffee)));
         logger.info("Order: " + specialCoffee.getDescription() + " Cost: $" + specialCoffee.getCost());
 
+        // Compile repeat orders once and reuse the flattened recipe
+        RecipeCache recipeCache = new RecipeCache();
+        CompiledCoffee compiled = recipeCache.compile(specialCoffee);
+        CompiledCoffee repeat = recipeCache.compile(new Whip(new Sugar(new Milk(new SimpleCoffee()))));
+        logger.info("Compiled order: " + compiled.getDescription() + " Cost: " + compiled.getFormattedCost());
+        logger.info("Repeat order shares compiled recipe: " + (compiled == repeat));
+
         logger.info("Coffee Shop demo completed.");
     }
+
+    public static void rushHourDemo() throws InterruptedException {
+        OrderPipeline pipeline = new OrderPipeline(4, 1024, 32, 200, new RecipeCache());
+        pipeline.start();
+        OrderLoadGenerator.run(pipeline, 8, 5000);
+        pipeline.shutdown();
+        logger.info("Pipeline stats: " + pipeline);
+        logger.info("Rush hour demo completed.");
+    }
 }